@@ -1,9 +1,12 @@
 package de.rosenau.simon.neuralnetwork;
 
 import com.google.common.base.Preconditions;
+import de.rosenau.simon.neuralnetwork.impl.Convolutional;
 import de.rosenau.simon.neuralnetwork.impl.FeedForward;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Project created by Simon Rosenau.
@@ -14,6 +17,8 @@ public class NetworkBuilder {
     private NetworkType type = NetworkType.FeedForward;
     private Activation activation = Activation.Sigmoid;
     private int[] neurons;
+    private int[] input;
+    private List<Convolutional.Layer> layers = new ArrayList<>();
 
     public NetworkBuilder setType(NetworkType type) {
         Preconditions.checkNotNull(type);
@@ -27,20 +32,55 @@ public class NetworkBuilder {
         return this;
     }
 
+    /**
+     * FeedForward: sizes of all layers, starting with the input layer.
+     * Convolutional: sizes of the dense layers after the flattened feature maps, ending with the output layer.
+     * The input is specified with {@link #setInput(int, int, int)} instead.
+     */
     public NetworkBuilder setNeurons(int... neurons) {
-        Preconditions.checkArgument(neurons.length > 1, "Network must at least have an input and an output layer");
+        Preconditions.checkArgument(neurons.length > 0, "Network must at least have an output layer");
         this.neurons = neurons;
         return this;
     }
 
+    /**
+     * Convolutional only. Inputs are laid out as [channel][row][column].
+     */
+    public NetworkBuilder setInput(int channels, int height, int width) {
+        Preconditions.checkArgument(channels > 0 && height > 0 && width > 0, "Input dimensions must be greater than 0");
+        this.input = new int[]{channels, height, width};
+        return this;
+    }
+
+    /**
+     * Convolutional only. Stride 1 without padding.
+     */
+    public NetworkBuilder addConvolution(int filters, int kernelSize) {
+        this.layers.add(Convolutional.Layer.convolution(filters, kernelSize));
+        return this;
+    }
+
+    /**
+     * Convolutional only. Non-overlapping windows of size x size.
+     */
+    public NetworkBuilder addPooling(Pooling pooling, int size) {
+        this.layers.add(Convolutional.Layer.pooling(pooling, size));
+        return this;
+    }
+
     public NeuralNetwork build() {
         Preconditions.checkNotNull(neurons, "You must specify the neurons of the network");
 
         NeuralNetwork network = null;
         switch (type) {
             case FeedForward:
+                Preconditions.checkState(input == null && layers.isEmpty(), "Input dimensions, convolution and pooling layers require the Convolutional network type");
                 network = new FeedForward(activation, neurons);
                 break;
+            case Convolutional:
+                Preconditions.checkNotNull(input, "You must specify the input dimensions of the network");
+                network = new Convolutional(activation, input[0], input[1], input[2], layers, neurons);
+                break;
         }
         return network;
     }
@@ -6,6 +6,7 @@ package de.rosenau.simon.neuralnetwork;
 
 public enum NetworkType {
 
+    Convolutional,
     FeedForward
 
 }
@@ -0,0 +1,12 @@
+package de.rosenau.simon.neuralnetwork;
+
+/**
+ * Project created by Simon Rosenau.
+ */
+
+public enum Pooling {
+
+    Average,
+    Max
+
+}
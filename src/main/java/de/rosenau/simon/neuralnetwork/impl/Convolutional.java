@@ -0,0 +1,645 @@
+package de.rosenau.simon.neuralnetwork.impl;
+
+import com.google.common.base.Preconditions;
+import de.rosenau.simon.neuralnetwork.*;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Project created by Simon Rosenau.
+ */
+
+public class Convolutional extends NeuralNetwork {
+
+    private int inputSize;
+    private int outputSize;
+    private Stage[] stages;
+
+    private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public Convolutional(Activation activation, int channels, int height, int width, List<Layer> layers, int... neurons) {
+        Preconditions.checkNotNull(activation);
+        Preconditions.checkNotNull(layers);
+        Preconditions.checkNotNull(neurons);
+        Preconditions.checkArgument(channels > 0 && height > 0 && width > 0, "Input dimensions must be greater than 0");
+        Preconditions.checkArgument(neurons.length >= 1, "You need at least an output layer");
+
+        List<Stage> stages = new ArrayList<>();
+
+        // Feature extraction (input is laid out as [channel][row][column])
+
+        int c = channels, h = height, w = width;
+        for (Layer layer : layers) {
+            Preconditions.checkArgument(layer.size <= h && layer.size <= w, "Layer size exceeds the dimensions of its input");
+            if (layer.pooling == null) {
+                stages.add(new ConvolutionStage(activation, c, h, w, layer.filters, layer.size));
+                c = layer.filters;
+                h = h - layer.size + 1;
+                w = w - layer.size + 1;
+            } else {
+                stages.add(new PoolingStage(layer.pooling, c, h, w, layer.size));
+                h /= layer.size;
+                w /= layer.size;
+            }
+        }
+
+        // Dense head on the flattened feature maps
+
+        int size = c * h * w;
+        for (int neuron : neurons) {
+            Preconditions.checkArgument(neuron > 0, "Layers must contain at least one neuron");
+            stages.add(new DenseStage(activation, size, neuron));
+            size = neuron;
+        }
+
+        this.inputSize = channels * height * width;
+        this.outputSize = size;
+        this.stages = stages.toArray(new Stage[0]);
+    }
+
+    @Override
+    public TrainingResult train(double[][] trainingInputs, double[][] trainingOutputs, TrainingProperties properties, TrainingObserver callback) {
+        Preconditions.checkArgument(trainingInputs.length == trainingOutputs.length, "Invalid training sample sizes");
+        Preconditions.checkNotNull(properties);
+        Preconditions.checkArgument(properties.getLearningRate() > 0, "LearningRate must be greater than 0");
+        Preconditions.checkArgument(properties.getMaxIterations() >= 0, "MaxIterations cannot be negative");
+        Preconditions.checkArgument(properties.getMaxError() >= 0, "MaxError cannot be negative");
+        Preconditions.checkArgument(properties.getBatches() > 0, "BatchSize must be greater than 0");
+        Preconditions.checkArgument(trainingInputs.length % properties.getBatches() == 0, "BatchSize is not a divisor of training size");
+        Preconditions.checkArgument(properties.getMaxError() != 0 || properties.getMaxIterations() != 0, "You have to specify MaxError or MaxIteration. Otherwise training will end in an infinite loop");
+        for (int i = 0; i < trainingInputs.length; i++) {
+            Preconditions.checkArgument(trainingInputs[i].length == inputSize, "Input array length does not match network input layer size");
+            Preconditions.checkArgument(trainingOutputs[i].length == outputSize, "Output array length does not match network output layer size");
+        }
+
+        lock.writeLock().lock();
+        try {
+            return runTraining(trainingInputs, trainingOutputs, properties, callback, trainingInputs.length / properties.getBatches());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private TrainingResult runTraining(double[][] trainingInputs, double[][] trainingOutputs, TrainingProperties properties, TrainingObserver callback, int batchSize) {
+        int iteration = 0;
+        double error = properties.getMaxError();
+
+        while ((properties.getMaxIterations() == 0 || iteration < properties.getMaxIterations())
+                && (properties.getMaxError() == 0 || properties.getMaxError() <= error)) {
+
+            iteration++;
+
+            // Iterate batches
+
+            for (int bi = 0; bi < properties.getBatches(); bi++) {
+
+                Training[] trainings = new Training[stages.length];
+                for (int s = 0; s < stages.length; s++) {
+                    trainings[s] = stages[s].training();
+                }
+
+                // Iterate samples
+
+                for (int i = bi * batchSize; i < (bi + 1) * batchSize; i++) {
+
+                    double[] input = trainingInputs[i];
+                    double[] output = trainingOutputs[i];
+
+                    Trace[] traces = new Trace[stages.length];
+                    double[] actual = input;
+                    for (int s = 0; s < stages.length; s++) {
+                        traces[s] = stages[s].forward(actual);
+                        actual = traces[s].output;
+                    }
+
+                    // Calculate output layer
+
+                    double[] derivatives = new double[output.length];
+
+                    for (int o = 0; o < derivatives.length; o++) {
+                        derivatives[o] = 2 * (actual[o] - output[o]);
+                    }
+
+                    // Backpropagation (the input itself needs no derivatives)
+
+                    for (int s = stages.length - 1; s >= 0; s--) {
+                        derivatives = stages[s].backward(traces[s], derivatives, trainings[s], s > 0);
+                    }
+
+                }
+
+                // Adjust weights and biases
+
+                for (int s = 0; s < stages.length; s++) {
+                    stages[s].adjust(trainings[s], properties.getLearningRate());
+                }
+            }
+
+            // Recalculate Error
+
+            error = 0;
+
+            for (int i = 0; i < trainingInputs.length; i++) {
+                double[] inputs = trainingInputs[i];
+                double[] outputs = trainingOutputs[i];
+
+                double[] actual = compute(inputs);
+
+                double current = 0;
+
+                for (int o = 0; o < actual.length; o++) {
+                    current += Math.abs(actual[o] - outputs[o]);
+                }
+
+                error += current / actual.length;
+            }
+
+            error /= trainingInputs.length;
+
+            if (callback != null) callback.call(iteration, error);
+
+        }
+
+        return new TrainingResult(iteration, error);
+    }
+
+    @Override
+    public double[] compute(double[] input) {
+        Preconditions.checkArgument(input.length == inputSize, "Input array length does not match network input layer size");
+
+        lock.readLock().lock();
+        try {
+            double[] output = input;
+
+            for (Stage stage : stages) {
+                output = stage.compute(output);
+            }
+
+            return output;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Topology
+
+    public static class Layer {
+
+        private Pooling pooling;
+        private int filters;
+        private int size;
+
+        private Layer(Pooling pooling, int filters, int size) {
+            this.pooling = pooling;
+            this.filters = filters;
+            this.size = size;
+        }
+
+        public static Layer convolution(int filters, int kernelSize) {
+            Preconditions.checkArgument(filters > 0, "Filters must be greater than 0");
+            Preconditions.checkArgument(kernelSize > 0, "KernelSize must be greater than 0");
+            return new Layer(null, filters, kernelSize);
+        }
+
+        public static Layer pooling(Pooling pooling, int size) {
+            Preconditions.checkNotNull(pooling);
+            Preconditions.checkArgument(size > 0, "Size must be greater than 0");
+            return new Layer(pooling, 0, size);
+        }
+
+    }
+
+    // Utils
+
+    private static class Training {
+
+        private double[] weightDerivatives;
+        private double[] biasDerivatives;
+
+        private Training(double[] weightDerivatives, double[] biasDerivatives) {
+            this.weightDerivatives = weightDerivatives;
+            this.biasDerivatives = biasDerivatives;
+        }
+
+    }
+
+    private static class Trace {
+
+        private double[] input;
+        private double[] z;
+        private int[] indices;
+        private double[] output;
+
+    }
+
+    private abstract static class Stage implements Serializable {
+
+        // Inference only, nothing is kept for backpropagation
+        double[] compute(double[] input) {
+            return forward(input).output;
+        }
+
+        abstract Trace forward(double[] input);
+
+        abstract double[] backward(Trace trace, double[] outputDerivatives, Training training, boolean propagate);
+
+        Training training() {
+            return null;
+        }
+
+        void adjust(Training training, double learningRate) {
+        }
+
+    }
+
+    private abstract static class WeightedStage extends Stage {
+
+        Activation activation;
+
+        double[] weights;
+        double[] bias;
+
+        WeightedStage(Activation activation, int outputs, int inputs) {
+            this.activation = activation;
+            this.weights = new double[outputs * inputs];
+            this.bias = new double[outputs];
+
+            // Scaled by fan-in, otherwise wide kernels saturate the activation right away
+            double scale = 1 / Math.sqrt(inputs);
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = (Math.random() * 2 - 1) * scale;
+            }
+        }
+
+        double[] activate(double[] z) {
+            double[] output = new double[z.length];
+            for (int i = 0; i < z.length; i++) {
+                output[i] = activation.activate(z[i]);
+            }
+            return output;
+        }
+
+        double[] activate(Trace trace, double[] z) {
+            trace.z = z;
+            trace.output = activate(z);
+            return trace.output;
+        }
+
+        double[] delta(Trace trace, double[] outputDerivatives) {
+            double[] delta = new double[outputDerivatives.length];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = outputDerivatives[i] * activation.derivative(trace.z[i]);
+            }
+            return delta;
+        }
+
+        @Override
+        Training training() {
+            return new Training(new double[weights.length], new double[bias.length]);
+        }
+
+        @Override
+        void adjust(Training training, double learningRate) {
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] -= training.weightDerivatives[i] * learningRate;
+            }
+            for (int i = 0; i < bias.length; i++) {
+                bias[i] -= training.biasDerivatives[i] * learningRate;
+            }
+        }
+
+    }
+
+    private static class ConvolutionStage extends WeightedStage {
+
+        private int channels;
+        private int height;
+        private int width;
+        private int filters;
+        private int kernel;
+
+        private int outputHeight;
+        private int outputWidth;
+
+        // One row per kernel weight, one column per output position
+        private int rows;
+        private int positions;
+
+        private ConvolutionStage(Activation activation, int channels, int height, int width, int filters, int kernel) {
+            super(activation, filters, channels * kernel * kernel);
+            this.channels = channels;
+            this.height = height;
+            this.width = width;
+            this.filters = filters;
+            this.kernel = kernel;
+            this.outputHeight = height - kernel + 1;
+            this.outputWidth = width - kernel + 1;
+            this.rows = channels * kernel * kernel;
+            this.positions = outputHeight * outputWidth;
+        }
+
+        // im2col: every receptive field becomes a column, so the convolution is a single matrix product
+        private double[] toColumns(double[] input) {
+            double[] columns = new double[rows * positions];
+            for (int c = 0; c < channels; c++) {
+                for (int ky = 0; ky < kernel; ky++) {
+                    for (int kx = 0; kx < kernel; kx++) {
+                        int offset = ((c * kernel + ky) * kernel + kx) * positions;
+                        for (int y = 0; y < outputHeight; y++) {
+                            System.arraycopy(input, (c * height + y + ky) * width + kx, columns, offset + y * outputWidth, outputWidth);
+                        }
+                    }
+                }
+            }
+            return columns;
+        }
+
+        // col2im: scatter column derivatives back onto the (overlapping) receptive fields
+        private double[] fromColumns(double[] columns) {
+            double[] input = new double[channels * height * width];
+            for (int c = 0; c < channels; c++) {
+                for (int ky = 0; ky < kernel; ky++) {
+                    for (int kx = 0; kx < kernel; kx++) {
+                        int offset = ((c * kernel + ky) * kernel + kx) * positions;
+                        for (int y = 0; y < outputHeight; y++) {
+                            int source = offset + y * outputWidth;
+                            int target = (c * height + y + ky) * width + kx;
+                            for (int x = 0; x < outputWidth; x++) {
+                                input[target + x] += columns[source + x];
+                            }
+                        }
+                    }
+                }
+            }
+            return input;
+        }
+
+        // Direct convolution without the column matrix. Output positions are walked with the input row stride,
+        // so every kernel weight is one long contiguous multiply-add; the wrapped columns are dropped afterwards
+        @Override
+        double[] compute(double[] input) {
+            int span = (outputHeight - 1) * width + outputWidth;
+            double[] wide = new double[span];
+            double[] z = new double[filters * positions];
+            for (int f = 0; f < filters; f++) {
+                Arrays.fill(wide, bias[f]);
+                for (int c = 0; c < channels; c++) {
+                    for (int ky = 0; ky < kernel; ky++) {
+                        for (int kx = 0; kx < kernel; kx++) {
+                            double weight = weights[f * rows + (c * kernel + ky) * kernel + kx];
+                            int source = (c * height + ky) * width + kx;
+                            for (int p = 0; p < span; p++) {
+                                wide[p] += weight * input[source + p];
+                            }
+                        }
+                    }
+                }
+                for (int y = 0; y < outputHeight; y++) {
+                    System.arraycopy(wide, y * width, z, f * positions + y * outputWidth, outputWidth);
+                }
+            }
+            return activate(z);
+        }
+
+        @Override
+        Trace forward(double[] input) {
+            Trace trace = new Trace();
+            double[] columns = toColumns(input);
+
+            // z = weights (filters x rows) * columns (rows x positions) + bias
+            double[] z = new double[filters * positions];
+            for (int f = 0; f < filters; f++) {
+                int zOffset = f * positions;
+                Arrays.fill(z, zOffset, zOffset + positions, bias[f]);
+                for (int r = 0; r < rows; r++) {
+                    double weight = weights[f * rows + r];
+                    int offset = r * positions;
+                    for (int p = 0; p < positions; p++) {
+                        z[zOffset + p] += weight * columns[offset + p];
+                    }
+                }
+            }
+
+            trace.input = columns;
+            activate(trace, z);
+            return trace;
+        }
+
+        @Override
+        double[] backward(Trace trace, double[] outputDerivatives, Training training, boolean propagate) {
+            double[] delta = delta(trace, outputDerivatives);
+            double[] columns = trace.input;
+
+            // dW = delta (filters x positions) * columns^T (positions x rows)
+            for (int f = 0; f < filters; f++) {
+                int dOffset = f * positions;
+                double biasDerivative = 0;
+                for (int p = 0; p < positions; p++) {
+                    biasDerivative += delta[dOffset + p];
+                }
+                training.biasDerivatives[f] += biasDerivative;
+
+                for (int r = 0; r < rows; r++) {
+                    int offset = r * positions;
+                    double weightDerivative = 0;
+                    for (int p = 0; p < positions; p++) {
+                        weightDerivative += delta[dOffset + p] * columns[offset + p];
+                    }
+                    training.weightDerivatives[f * rows + r] += weightDerivative;
+                }
+            }
+
+            if (!propagate) return null;
+
+            // dColumns = weights^T (rows x filters) * delta (filters x positions)
+            double[] columnDerivatives = new double[rows * positions];
+            for (int f = 0; f < filters; f++) {
+                int dOffset = f * positions;
+                for (int r = 0; r < rows; r++) {
+                    double weight = weights[f * rows + r];
+                    int offset = r * positions;
+                    for (int p = 0; p < positions; p++) {
+                        columnDerivatives[offset + p] += weight * delta[dOffset + p];
+                    }
+                }
+            }
+
+            return fromColumns(columnDerivatives);
+        }
+
+    }
+
+    private static class PoolingStage extends Stage {
+
+        private Pooling pooling;
+
+        private int channels;
+        private int height;
+        private int width;
+        private int size;
+
+        private int outputHeight;
+        private int outputWidth;
+
+        private PoolingStage(Pooling pooling, int channels, int height, int width, int size) {
+            this.pooling = pooling;
+            this.channels = channels;
+            this.height = height;
+            this.width = width;
+            this.size = size;
+            this.outputHeight = height / size;
+            this.outputWidth = width / size;
+        }
+
+        // Indices of the selected inputs are only recorded for max pooling and only when requested
+        private double[] pool(double[] input, int[] indices) {
+            double[] output = new double[channels * outputHeight * outputWidth];
+
+            if (pooling == Pooling.Average) {
+                double scale = 1D / (size * size);
+                for (int c = 0; c < channels; c++) {
+                    for (int y = 0; y < outputHeight; y++) {
+                        int o = (c * outputHeight + y) * outputWidth;
+                        for (int dy = 0; dy < size; dy++) {
+                            int offset = (c * height + y * size + dy) * width;
+                            for (int x = 0; x < outputWidth; x++) {
+                                double value = 0;
+                                for (int dx = 0; dx < size; dx++) {
+                                    value += input[offset + x * size + dx];
+                                }
+                                output[o + x] += value * scale;
+                            }
+                        }
+                    }
+                }
+                return output;
+            }
+
+            for (int c = 0; c < channels; c++) {
+                for (int y = 0; y < outputHeight; y++) {
+                    for (int x = 0; x < outputWidth; x++) {
+                        int o = (c * outputHeight + y) * outputWidth + x;
+                        int index = (c * height + y * size) * width + x * size;
+                        double value = input[index];
+
+                        for (int dy = 0; dy < size; dy++) {
+                            int offset = (c * height + y * size + dy) * width + x * size;
+                            for (int dx = 0; dx < size; dx++) {
+                                if (input[offset + dx] > value) {
+                                    value = input[offset + dx];
+                                    index = offset + dx;
+                                }
+                            }
+                        }
+
+                        output[o] = value;
+                        if (indices != null) indices[o] = index;
+                    }
+                }
+            }
+            return output;
+        }
+
+        @Override
+        double[] compute(double[] input) {
+            return pool(input, null);
+        }
+
+        @Override
+        Trace forward(double[] input) {
+            Trace trace = new Trace();
+            if (pooling == Pooling.Max) {
+                trace.indices = new int[channels * outputHeight * outputWidth];
+            }
+            trace.output = pool(input, trace.indices);
+            return trace;
+        }
+
+        @Override
+        double[] backward(Trace trace, double[] outputDerivatives, Training training, boolean propagate) {
+            if (!propagate) return null;
+
+            // Rows and columns cut off by the windows receive no derivative
+            double[] inputDerivatives = new double[channels * height * width];
+
+            for (int c = 0; c < channels; c++) {
+                for (int y = 0; y < outputHeight; y++) {
+                    for (int x = 0; x < outputWidth; x++) {
+                        int o = (c * outputHeight + y) * outputWidth + x;
+
+                        if (pooling == Pooling.Max) {
+                            inputDerivatives[trace.indices[o]] += outputDerivatives[o];
+                            continue;
+                        }
+
+                        double derivative = outputDerivatives[o] / (size * size);
+                        for (int dy = 0; dy < size; dy++) {
+                            int offset = (c * height + y * size + dy) * width + x * size;
+                            for (int dx = 0; dx < size; dx++) {
+                                inputDerivatives[offset + dx] += derivative;
+                            }
+                        }
+                    }
+                }
+            }
+
+            return inputDerivatives;
+        }
+
+    }
+
+    private static class DenseStage extends WeightedStage {
+
+        private int inputs;
+        private int outputs;
+
+        private DenseStage(Activation activation, int inputs, int outputs) {
+            super(activation, outputs, inputs);
+            this.inputs = inputs;
+            this.outputs = outputs;
+        }
+
+        @Override
+        Trace forward(double[] input) {
+            Trace trace = new Trace();
+            double[] z = new double[outputs];
+
+            for (int o = 0; o < outputs; o++) {
+                double a = bias[o];
+                int offset = o * inputs;
+                for (int i = 0; i < inputs; i++) {
+                    a += weights[offset + i] * input[i];
+                }
+                z[o] = a;
+            }
+
+            trace.input = input;
+            activate(trace, z);
+            return trace;
+        }
+
+        @Override
+        double[] backward(Trace trace, double[] outputDerivatives, Training training, boolean propagate) {
+            double[] delta = delta(trace, outputDerivatives);
+            double[] inputDerivatives = propagate ? new double[inputs] : null;
+
+            for (int o = 0; o < outputs; o++) {
+                int offset = o * inputs;
+                training.biasDerivatives[o] += delta[o];
+                for (int i = 0; i < inputs; i++) {
+                    training.weightDerivatives[offset + i] += delta[o] * trace.input[i];
+                    if (propagate) inputDerivatives[i] += weights[offset + i] * delta[o];
+                }
+            }
+
+            return inputDerivatives;
+        }
+
+    }
+
+}
@@ -56,6 +56,25 @@ public class Test {
         test(network, test);
     }
 
+    public static void main2(String[] args) throws Exception {
+        // ~6.9k multiply-adds per sample and ~1.5k parameters, main1 needs ~13k of each
+        NeuralNetwork network = new NetworkBuilder().setType(NetworkType.Convolutional).setActivation(Activation.ReLU)
+                .setInput(1, 28, 28).addPooling(Pooling.Average, 2).addConvolution(4, 3).addPooling(Pooling.Max, 2)
+                .setNeurons(10).build();
+
+        MNIST training = new MNIST("mnist/train-images.idx3-ubyte", "mnist/train-labels.idx1-ubyte");
+        MNIST test = new MNIST("mnist/t10k-images.idx3-ubyte", "mnist/t10k-labels.idx1-ubyte");
+
+        double[][] inputs = training.getData();
+        double[][] outputs = convertLabelsToOutput(training.getLabels());
+
+        test(network, test);
+
+        network.train(inputs, outputs, TrainingProperties.builder().batches(6000).maxIterations(5).learningRate(0.005).build(), (iteration, error) -> System.out.println(iteration + " " + error));
+
+        test(network, test);
+    }
+
     public static void test(NeuralNetwork network, MNIST test) {
         double[][] inputs = test.getData();
         byte[] labels = test.getLabels();